@@ -19,6 +19,7 @@ package com.github.kvr000.adaptivezip;
 import com.github.kvr000.adaptivezip.io.AnyOfPathMatcher;
 import com.github.kvr000.adaptivezip.io.Crc32CalculatingInputStream;
 import com.github.kvr000.adaptivezip.io.FirstOfPathMatcher;
+import com.github.kvr000.adaptivezip.io.LocalityReadScheduler;
 import com.github.kvr000.adaptivezip.io.PathMatcherUtil;
 import com.google.common.collect.ImmutableMap;
 import com.google.inject.AbstractModule;
@@ -53,10 +54,10 @@ import org.apache.commons.lang3.tuple.Pair;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PrintStream;
 import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitResult;
@@ -81,8 +82,13 @@ import java.util.stream.Stream;
 
 public class AdaptiveZip extends AbstractCommand
 {
+	/** Maximum size of file to be prefetched by read-ahead. */
+	private static final long PREFETCH_MAX_SIZE = 1L << 20;
+
 	private Options options;
 
+	private Environment environment = new Environment();
+
 	public static void main(String[] args) throws Exception
 	{
 		runMain(args, (args0) -> {
@@ -94,6 +100,17 @@ public class AdaptiveZip extends AbstractCommand
 		});
 	}
 
+	/**
+	 * Sets the environment the command runs in, used when running within server.
+	 *
+	 * @param environment
+	 * 	environment of the command
+	 */
+	public void setEnvironment(Environment environment)
+	{
+		this.environment = environment;
+	}
+
 	@Override
 	protected boolean parseOption(CommandContext context, String arg, ListIterator<String> args) throws Exception
 	{
@@ -130,6 +147,14 @@ public class AdaptiveZip extends AbstractCommand
 			ensureEmptySource(false).root = needArgsParam(null, args);
 			return true;
 		}
+		case "--read-order" -> {
+			options.readOrder = needArgsParam(options.readOrder, args);
+			return true;
+		}
+		case "--read-ahead" -> {
+			options.readAhead = Integer.parseInt(needArgsParam(options.readAhead, args));
+			return true;
+		}
 		default -> {
 			return super.parseOption(context, arg, args);
 		}
@@ -164,10 +189,27 @@ public class AdaptiveZip extends AbstractCommand
 		if (options.storeRatio == null) {
 			options.storeRatio = 10;
 		}
+		if (options.readOrder == null) {
+			options.readOrder = "archive";
+		}
+		else if (!options.readOrder.equals("archive") && !options.readOrder.equals("inode")) {
+			return usage(context, "--read-order must be one of archive or inode");
+		}
+		if (options.readAhead == null) {
+			options.readAhead = 64;
+		}
+		else if (options.readAhead <= 0) {
+			return usage(context, "--read-ahead must be positive");
+		}
+		if (prefetchCapacity() > environment.memoryCapacity/2) {
+			return usage(context, "--read-ahead must not exceed "+environment.memoryCapacity/2/PREFETCH_MAX_SIZE+" for available memory");
+		}
 
 		options.storePatternsMatcher = new AnyOfPathMatcher(options.storePatterns);
 		options.deflateParameters = new DeflateParameters();
 		options.deflateParameters.setCompressionLevel(options.compressionLevel);
+		// zip entries contain raw deflate stream
+		options.deflateParameters.setWithZlibHeader(false);
 
 		return EXIT_CONTINUE;
 	}
@@ -207,6 +249,8 @@ public class AdaptiveZip extends AbstractCommand
 			.put("--store-ratio percent", "compression ratio to avoid compression (default is 10)")
 			.put("-z|--compression-level compression-level", "compression level (1-9, can be more for specific compressions)")
 			.put("--root directory", "add files from the directory")
+			.put("--read-order archive|inode", "order of reading files (default is archive)")
+			.put("--read-ahead count", "number of files read ahead with inode read order (default is 64)")
 			.build();
 	}
 
@@ -245,9 +289,29 @@ public class AdaptiveZip extends AbstractCommand
 
 		Integer compressionLevel;
 
+		String readOrder;
+
+		Integer readAhead;
+
 		DeflateParameters deflateParameters;
 	}
 
+	@Data
+	public static class Environment
+	{
+		/** Directory to resolve relative paths against. */
+		Path workingDirectory = Paths.get("");
+
+		/** Stream for progress and warnings. */
+		PrintStream err = System.err;
+
+		/** Memory capacity of the job, including read-ahead buffers. */
+		long memoryCapacity = Runtime.getRuntime().maxMemory()*7/8;
+
+		/** Whether the standard output is not available, such as for remote clients. */
+		boolean detached;
+	}
+
 	@Override
 	public int execute() throws Exception
 	{
@@ -270,6 +334,9 @@ public class AdaptiveZip extends AbstractCommand
 
 	int executeTar() throws Exception
 	{
+		if (environment.detached) {
+			throw new IllegalArgumentException("-t archive-type is not supported without standard output");
+		}
 		Map<String, Path> seen = new LinkedHashMap<>();
 		options.getSources().forEach(source -> {
 			if (!source.root.equals(".") && !source.root.equals("")) {
@@ -288,7 +355,7 @@ public class AdaptiveZip extends AbstractCommand
 				String name = slashify(paths.getLeft());
 				Path old;
 				if ((old = seen.put(name, paths.getRight())) != null) {
-					System.err.println("Ignore duplicate entry: "+name+" old="+old+" new="+paths.getRight());
+					environment.err.println("Ignore duplicate entry: "+name+" old="+old+" new="+paths.getRight());
 					return;
 				}
 				filesStream.write(paths.getRight().toString().getBytes(StandardCharsets.UTF_8));
@@ -309,30 +376,50 @@ public class AdaptiveZip extends AbstractCommand
 	int executeZip() throws Exception
 	{
 		Map<String, Path> seen = new LinkedHashMap<>();
-		List<ImmutablePair<Path, Path>> files = collectFiles(options.getSources());
+		List<ImmutablePair<Path, Path>> files = collectFiles(options.getSources()).stream()
+			.filter(paths -> Files.isRegularFile(paths.getLeft()))
+			.collect(Collectors.toList());
 		AtomicReference<IOException> mainEx = new AtomicReference<>();
 		try (
-			ZipArchiveOutputStream archive = new ZipArchiveOutputStream(new File(options.archiveFilename));
-			CapacityResultSequencingExecutor executor = new CapacityResultSequencingExecutor(Runtime.getRuntime().maxMemory()*7/8, 128)
+			LocalityReadScheduler reader = options.readOrder.equals("inode") ?
+				new LocalityReadScheduler(files.stream().map(Pair::getLeft).collect(Collectors.toList()), options.readAhead, PREFETCH_MAX_SIZE) :
+				null;
+			ZipArchiveOutputStream archive = new ZipArchiveOutputStream(environment.workingDirectory.resolve(options.archiveFilename).toFile());
+			CapacityResultSequencingExecutor executor = new CapacityResultSequencingExecutor(environment.memoryCapacity-prefetchCapacity(), 128)
 		) {
-			files.forEach((ImmutablePair<Path, Path> paths) -> {
-				if (!Files.isRegularFile(paths.getLeft())) {
-					return;
+			for (int i = 0; i < files.size(); ++i) {
+				if (isAborted()) {
+					break;
 				}
+				final int index = i;
+				final ImmutablePair<Path, Path> paths = files.get(i);
 				FutureUtil.submitDirect(() -> Files.size(paths.getLeft()))
+					.whenComplete((Long size, Throwable ex) -> {
+						if (ex != null && reader != null) {
+							try {
+								reader.take(index).close();
+							}
+							catch (IOException ex2) {
+								// already failed on size
+							}
+						}
+					})
 					.thenCompose((Long size) ->
 						executor.submit(
 							size,
-							() -> buildRawEntry(paths),
+							() -> buildRawEntry(paths, reader, index),
 							(entry) -> {
 								try {
 									Path old;
 									if ((old = seen.put(entry.getLeft().getName(), paths.getRight())) != null) {
-										System.err.println("Ignore duplicate entry: "+entry.getLeft().getName()+" old="+old+" new="+paths.getRight());
+										environment.err.println("Ignore duplicate entry: "+entry.getLeft().getName()+" old="+old+" new="+paths.getRight());
 										return null;
 									}
-									System.err.println("\tadding: "+entry.getLeft().getName()+" ("+
+									environment.err.println("\tadding: "+entry.getLeft().getName()+" ("+
 										(entry.getLeft().getSize() != 0 ? (entry.getLeft().getSize()-entry.getLeft().getCompressedSize())*100L/entry.getLeft().getSize() : 0)+"%)");
+									if (isAborted()) {
+										throw new IOException("Output closed, aborting archive: "+options.archiveFilename);
+									}
 										archive.addRawArchiveEntry(entry.getLeft(), entry.getRight());
 										entry.getRight().close();
 									return null;
@@ -348,22 +435,37 @@ public class AdaptiveZip extends AbstractCommand
 						mainEx.get().addSuppressed(ex);
 						return null;
 					});
-			});
+			}
 		}
 		if (mainEx.get() != null) {
 			throw mainEx.get();
 		}
+		if (isAborted()) {
+			throw new IOException("Output closed, aborting archive: "+options.archiveFilename);
+		}
 		return 0;
 	}
 
+	/**
+	 * Checks whether the detached client stopped receiving the output, so the job should not continue.
+	 */
+	private boolean isAborted()
+	{
+		return environment.detached && environment.err.checkError();
+	}
+
 	private List<ImmutablePair<Path, Path>> collectFiles(List<Source> sources)
 	{
 		List<ImmutablePair<Path, Path>> files = sources.parallelStream()
 			.flatMap(source -> {
+				if (source.file != null && Paths.get(source.file).isAbsolute()) {
+					// entry names are relative to working directory, same in command line and server
+					throw new IllegalArgumentException("Absolute file cannot be added without --root: "+source.file);
+				}
 				PathMatcher matcher = new FirstOfPathMatcher(source.filter, true);
 				try (CloseableExecutor executor = new CommonPoolExecutor()) {
-					Path root = Paths.get(source.root);
-					Path start = source.file == null ? root : Paths.get(source.file);
+					Path root = environment.workingDirectory.resolve(source.root);
+					Path start = source.file == null ? root : environment.workingDirectory.resolve(source.file);
 					List<ImmutablePair<Path, Path>> result = new ArrayList<>();
 					if (Files.isDirectory(start)) {
 						Files.walkFileTree(
@@ -431,9 +533,17 @@ public class AdaptiveZip extends AbstractCommand
 		return files;
 	}
 
-	private Pair<ZipArchiveEntry, InputStream> buildRawEntry(Pair<Path, Path> input) {
+	/**
+	 * Memory reserved for read-ahead buffers, not accounted by the compression executor.
+	 */
+	private long prefetchCapacity()
+	{
+		return options.readOrder.equals("inode") ? options.readAhead*PREFETCH_MAX_SIZE : 0;
+	}
+
+	private Pair<ZipArchiveEntry, InputStream> buildRawEntry(Pair<Path, Path> input, LocalityReadScheduler reader, int index) {
 		Path full = input.getLeft();
-		try (InputStream stream = Files.newInputStream(full)) {
+		try (InputStream stream = reader != null ? reader.take(index) : Files.newInputStream(full)) {
 			Crc32CalculatingInputStream crcStream = new Crc32CalculatingInputStream(stream);
 			ZipArchiveEntry entry = new ZipArchiveEntry(slashify(input.getRight()));
 			InputStream compressedInput = null;
@@ -454,7 +564,14 @@ public class AdaptiveZip extends AbstractCommand
 			if (compressedInput == null) {
 				entry.setMethod(ZipMethod.STORED.getCode());
 				entry.setCompressedSize(crcStream.getSize());
-				compressedInput = Files.newInputStream(full);
+				if (stream instanceof ByteArrayInputStream) {
+					// prefetched content can be replayed, closing ByteArrayInputStream has no effect
+					stream.reset();
+					compressedInput = stream;
+				}
+				else {
+					compressedInput = Files.newInputStream(full);
+				}
 			}
 			entry.setCrc(crcStream.getCrc32()&0xffffffffL);
 			entry.setSize(crcStream.getSize());
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2016 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.adaptivezip.io;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+
+/**
+ * Read-ahead of file contents, issuing the reads in disk locality order.
+ *
+ * The files are processed in windows of read-ahead size, following their original order.  Within the window, the
+ * reads are sorted by device and inode number, which approximates the physical placement on most Unix filesystems.
+ * If the unix attributes are not available, the window is read in the original order, files whose attributes cannot
+ * be read are read last.
+ *
+ * Each file occupies one read-ahead slot until it is taken by {@link #take(int)}, so at most read-ahead files are held
+ * in memory.  Files bigger than the prefetch limit are not read into memory, they are opened once the reader reaches
+ * them and keep their slot until the returned stream is closed, so their reads start in the same order and their
+ * number is bounded by read-ahead as well.
+ */
+public class LocalityReadScheduler implements AutoCloseable
+{
+	private final List<Path> files;
+
+	private final int readAhead;
+
+	private final long maxPrefetchSize;
+
+	private final AtomicReferenceArray<CompletableFuture<byte[]>> contents;
+
+	private final Semaphore slots;
+
+	private final Thread reader;
+
+	public LocalityReadScheduler(List<Path> files, int readAhead, long maxPrefetchSize)
+	{
+		if (readAhead <= 0) {
+			throw new IllegalArgumentException("readAhead must be positive: "+readAhead);
+		}
+		this.files = files;
+		this.readAhead = readAhead;
+		this.maxPrefetchSize = maxPrefetchSize;
+		this.contents = new AtomicReferenceArray<>(files.size());
+		for (int i = 0; i < files.size(); ++i) {
+			this.contents.set(i, new CompletableFuture<>());
+		}
+		this.slots = new Semaphore(readAhead);
+		this.reader = new Thread(this::run, "LocalityReadScheduler");
+		this.reader.setDaemon(true);
+		this.reader.start();
+	}
+
+	/**
+	 * Takes content of the file, waiting until it is read.  The scheduler drops its reference to the content, so it
+	 * can be taken only once.
+	 *
+	 * @param index
+	 * 	index of the file in the original list
+	 *
+	 * @return
+	 * 	stream of the file content, the stream must be closed to release the slot of file read directly
+	 *
+	 * @throws IOException
+	 * 	when reading the file failed
+	 */
+	public InputStream take(int index) throws IOException
+	{
+		CompletableFuture<byte[]> future = contents.get(index);
+		if (future == null) {
+			throw new IllegalStateException("Content already taken: "+index);
+		}
+		byte[] content;
+		try {
+			content = future.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for content: "+files.get(index));
+		}
+		catch (ExecutionException e) {
+			contents.set(index, null);
+			slots.release();
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Failed to read file: "+files.get(index), e.getCause());
+		}
+		contents.set(index, null);
+		if (content != null) {
+			slots.release();
+			return new ByteArrayInputStream(content);
+		}
+		InputStream stream;
+		try {
+			stream = Files.newInputStream(files.get(index));
+		}
+		catch (IOException|RuntimeException e) {
+			slots.release();
+			throw e;
+		}
+		return new FilterInputStream(stream)
+		{
+			private boolean closed;
+
+			@Override
+			public void close() throws IOException
+			{
+				if (!closed) {
+					closed = true;
+					try {
+						super.close();
+					}
+					finally {
+						slots.release();
+					}
+				}
+			}
+		};
+	}
+
+	/**
+	 * Checks whether the scheduler holds read and not yet taken content of the file.
+	 */
+	@VisibleForTesting
+	boolean isRetained(int index)
+	{
+		CompletableFuture<byte[]> future = contents.get(index);
+		return future != null && future.isDone();
+	}
+
+	/**
+	 * Gets number of currently free read-ahead slots.
+	 */
+	@VisibleForTesting
+	int availableSlots()
+	{
+		return slots.availablePermits();
+	}
+
+	@Override
+	public void close()
+	{
+		reader.interrupt();
+		try {
+			reader.join();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void run()
+	{
+		try {
+			for (int start = 0; start < files.size(); start += readAhead) {
+				for (int index: sortWindow(start, Math.min(start+readAhead, files.size()))) {
+					slots.acquire();
+					read(index);
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			InterruptedIOException ex = new InterruptedIOException("Read-ahead interrupted");
+			for (int i = 0; i < contents.length(); ++i) {
+				CompletableFuture<byte[]> future = contents.get(i);
+				if (future != null) {
+					future.completeExceptionally(ex);
+				}
+			}
+		}
+	}
+
+	private List<Integer> sortWindow(int start, int end)
+	{
+		List<Integer> window = IntStream.range(start, end).boxed().collect(Collectors.toList());
+		List<long[]> keys = new ArrayList<>(window.size());
+		for (int index: window) {
+			try {
+				Map<String, Object> attrs = Files.readAttributes(files.get(index), "unix:dev,ino");
+				keys.add(new long[]{ ((Number) attrs.get("dev")).longValue(), ((Number) attrs.get("ino")).longValue() });
+			}
+			catch (UnsupportedOperationException e) {
+				return window;
+			}
+			catch (IOException|RuntimeException e) {
+				keys.add(new long[]{ Long.MAX_VALUE, Long.MAX_VALUE });
+			}
+		}
+		window.sort(Comparator.comparing((Integer index) -> keys.get(index-start), Comparator
+			.<long[]>comparingLong(key -> key[0])
+			.thenComparingLong(key -> key[1])
+		));
+		return window;
+	}
+
+	private void read(int index)
+	{
+		Path file = files.get(index);
+		// the future is dropped by consumer only after it is completed, so it is always present here
+		try {
+			contents.get(index).complete(Files.size(file) > maxPrefetchSize ? null : Files.readAllBytes(file));
+		}
+		catch (IOException|RuntimeException e) {
+			contents.get(index).completeExceptionally(e);
+		}
+	}
+}
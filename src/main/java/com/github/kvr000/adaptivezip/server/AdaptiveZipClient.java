@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.adaptivezip.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Thin client submitting the AdaptiveZip arguments to {@link AdaptiveZipServer}.
+ *
+ * Intentionally avoids any dependencies, so it starts fast.  The socket is specified either by leading
+ * {@code --socket path} arguments or by {@value ServerProtocol#SOCKET_ENV} environment variable, the remaining
+ * arguments are the same as for AdaptiveZip command line.
+ */
+public class AdaptiveZipClient
+{
+	public static void main(String[] args) throws IOException
+	{
+		String socket = System.getenv(ServerProtocol.SOCKET_ENV);
+		int first = 0;
+		if (args.length >= 2 && args[0].equals("--socket")) {
+			socket = args[1];
+			first = 2;
+		}
+		if (socket == null) {
+			System.err.println("Usage: AdaptiveZipClient [--socket socket-path] adaptive-zip-options...");
+			System.err.println("Socket path can be also provided in "+ServerProtocol.SOCKET_ENV+" environment variable");
+			System.exit(122);
+		}
+		System.exit(execute(socket, Paths.get("").toAbsolutePath().toString(), Arrays.asList(args).subList(first, args.length), System.out, System.err));
+	}
+
+	/**
+	 * Runs the job on server.
+	 *
+	 * @param socket
+	 * 	server socket path
+	 * @param workingDirectory
+	 * 	directory to resolve the relative paths against
+	 * @param args
+	 * 	AdaptiveZip arguments
+	 * @param out
+	 * 	stream to copy standard output of the job to
+	 * @param err
+	 * 	stream to copy error output of the job to
+	 *
+	 * @return
+	 * 	exit code of the job
+	 */
+	static int execute(String socket, String workingDirectory, List<String> args, OutputStream out, OutputStream err) throws IOException
+	{
+		try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+			DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+			ServerProtocol.writeRequest(output, workingDirectory, args);
+			for (;;) {
+				int type = input.readUnsignedByte();
+				switch (type) {
+				case ServerProtocol.FRAME_STDOUT -> {
+					byte[] data = new byte[input.readInt()];
+					input.readFully(data);
+					out.write(data);
+					out.flush();
+				}
+				case ServerProtocol.FRAME_STDERR -> {
+					byte[] data = new byte[input.readInt()];
+					input.readFully(data);
+					err.write(data);
+					err.flush();
+				}
+				case ServerProtocol.FRAME_EXIT -> {
+					return input.readInt();
+				}
+				default -> throw new IOException("Unexpected frame type received from server: "+type);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2016 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.adaptivezip.server;
+
+import com.github.kvr000.adaptivezip.AdaptiveZip;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.inject.Guice;
+import com.google.inject.Inject;
+import lombok.Data;
+import net.dryuf.cmdline.app.AppContext;
+import net.dryuf.cmdline.app.BeanFactory;
+import net.dryuf.cmdline.app.CommonAppContext;
+import net.dryuf.cmdline.command.AbstractCommand;
+import net.dryuf.cmdline.command.CommandContext;
+import net.dryuf.cmdline.command.RootCommandContext;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Server keeping AdaptiveZip warm, running the jobs submitted by {@link AdaptiveZipClient} over Unix domain socket.
+ *
+ * The jobs run concurrently, up to the specified number, sharing the JVM worker pools.  Each of them gets equal part
+ * of the memory capacity.  The request is read before the job takes its slot, so idle clients do not block the jobs,
+ * and the standard and error output of the job thread is sent to the client.
+ */
+public class AdaptiveZipServer extends AbstractCommand
+{
+	/** Timeout for client to send the request. */
+	private static final long REQUEST_TIMEOUT_SECONDS = 30;
+
+	private final AppContext appContext;
+
+	private final ScheduledExecutorService timeouts = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "AdaptiveZipServer-timeouts");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private Options options;
+
+	private Semaphore jobSlots;
+
+	private ThreadRedirectingOutputStream stdout;
+
+	private ThreadRedirectingOutputStream stderr;
+
+	@Inject
+	public AdaptiveZipServer(BeanFactory beanFactory)
+	{
+		this.appContext = new CommonAppContext(beanFactory);
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		runMain(args, (args0) -> {
+			AppContext appContext = new CommonAppContext(Guice.createInjector(new AdaptiveZip.GuiceModule()).getInstance(BeanFactory.class));
+			return appContext.getBeanFactory().getBean(AdaptiveZipServer.class).run(
+				new RootCommandContext(appContext).createChild(null, "AdaptiveZipServer", null),
+				Arrays.asList(args0)
+			);
+		});
+	}
+
+	@Override
+	protected boolean parseOption(CommandContext context, String arg, ListIterator<String> args) throws Exception
+	{
+		switch (arg) {
+		case "--socket" -> {
+			options.socket = needArgsParam(options.socket, args);
+			return true;
+		}
+		case "--jobs" -> {
+			options.jobs = Integer.parseInt(needArgsParam(options.jobs, args));
+			return true;
+		}
+		default -> {
+			return super.parseOption(context, arg, args);
+		}
+		}
+	}
+
+	@Override
+	protected int parseNonOptions(CommandContext context, ListIterator<String> args) throws Exception
+	{
+		if (args.hasNext()) {
+			return usage(context, "unexpected parameters: "+args.next());
+		}
+		return EXIT_CONTINUE;
+	}
+
+	@Override
+	protected int validateOptions(CommandContext context, ListIterator<String> args) throws Exception
+	{
+		if (options.socket == null) {
+			options.socket = System.getenv(ServerProtocol.SOCKET_ENV);
+			if (options.socket == null) {
+				return usage(context, "--socket socket-path must be specified");
+			}
+		}
+		if (options.jobs == null) {
+			options.jobs = Runtime.getRuntime().availableProcessors();
+		}
+		else if (options.jobs <= 0) {
+			return usage(context, "--jobs must be positive");
+		}
+		return EXIT_CONTINUE;
+	}
+
+	@Override
+	protected void createOptions(CommandContext context)
+	{
+		this.options = new Options();
+	}
+
+	@Override
+	protected String configHelpTitle(CommandContext context)
+	{
+		return context.getCommandPath() + " - archiving server";
+	}
+
+	@Override
+	protected Map<String, String> configOptionsDescription(CommandContext context)
+	{
+		return ImmutableMap.<String, String>builder()
+			.put("--socket socket-path", "Unix domain socket to listen on (default is "+ServerProtocol.SOCKET_ENV+" environment variable)")
+			.put("--jobs count", "number of concurrently running jobs (default is number of CPUs)")
+			.build();
+	}
+
+	@Override
+	protected Map<String, String> configParametersDescription(CommandContext context)
+	{
+		return ImmutableMap.of();
+	}
+
+	@Data
+	public static class Options
+	{
+		String socket;
+
+		Integer jobs;
+	}
+
+	@Override
+	public int execute() throws Exception
+	{
+		Path socket = Paths.get(options.socket);
+		jobSlots = new Semaphore(options.jobs);
+		System.setOut(new PrintStream(stdout = new ThreadRedirectingOutputStream(System.out), true));
+		System.setErr(new PrintStream(stderr = new ThreadRedirectingOutputStream(System.err), true));
+		ServerSocketChannel server = bind(socket);
+		try (
+			server;
+			ExecutorService connections = Executors.newVirtualThreadPerTaskExecutor()
+		) {
+			for (;;) {
+				SocketChannel client = server.accept();
+				connections.execute(() -> serve(client));
+			}
+		}
+		finally {
+			timeouts.shutdownNow();
+			Files.deleteIfExists(socket);
+		}
+	}
+
+	/**
+	 * Binds the server socket, accessible by owner only.  The socket is bound in private directory and moved to its
+	 * place once its permissions are restricted.  Existing file is replaced only if it is stale socket.
+	 */
+	@VisibleForTesting
+	static ServerSocketChannel bind(Path socket) throws IOException
+	{
+		if (Files.exists(socket, LinkOption.NOFOLLOW_LINKS)) {
+			if (!Files.readAttributes(socket, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther()) {
+				throw new IOException("Refusing to replace file which is not socket: "+socket);
+			}
+			try (SocketChannel probe = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+				probe.connect(UnixDomainSocketAddress.of(socket));
+				throw new IOException("Server is already listening on socket: "+socket);
+			}
+			catch (ConnectException ex) {
+				Files.delete(socket);
+			}
+		}
+		Path directory = Files.createTempDirectory(socket.toAbsolutePath().getParent(), ".azs",
+			PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+		Path temporary = directory.resolve("s");
+		try {
+			ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+			try {
+				server.bind(UnixDomainSocketAddress.of(temporary));
+				Files.setPosixFilePermissions(temporary, PosixFilePermissions.fromString("rw-------"));
+				Files.move(temporary, socket, StandardCopyOption.ATOMIC_MOVE);
+				return server;
+			}
+			catch (IOException|RuntimeException ex) {
+				server.close();
+				throw ex;
+			}
+		}
+		finally {
+			Files.deleteIfExists(temporary);
+			Files.delete(directory);
+		}
+	}
+
+	private void serve(SocketChannel channel)
+	{
+		try (channel) {
+			DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+			Path workingDirectory;
+			List<String> args;
+			ScheduledFuture<?> timeout = timeouts.schedule(() -> {
+				try {
+					channel.close();
+				}
+				catch (IOException ex) {
+					// closing anyway
+				}
+			}, REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			try {
+				workingDirectory = Paths.get(ServerProtocol.readWorkingDirectory(input));
+				args = ServerProtocol.readArgs(input);
+			}
+			finally {
+				timeout.cancel(false);
+			}
+			PrintStream out = new PrintStream(new ServerProtocol.FrameOutputStream(output, ServerProtocol.FRAME_STDOUT), true, StandardCharsets.UTF_8);
+			PrintStream err = new PrintStream(new ServerProtocol.FrameOutputStream(output, ServerProtocol.FRAME_STDERR), true, StandardCharsets.UTF_8);
+			int exit;
+			jobSlots.acquire();
+			stdout.redirect(out);
+			stderr.redirect(err);
+			try {
+				AdaptiveZip.Environment environment = new AdaptiveZip.Environment();
+				environment.setWorkingDirectory(workingDirectory);
+				environment.setErr(err);
+				environment.setMemoryCapacity(Runtime.getRuntime().maxMemory()*7/8/options.jobs);
+				environment.setDetached(true);
+				AdaptiveZip command = appContext.getBeanFactory().getBean(AdaptiveZip.class);
+				command.setEnvironment(environment);
+				exit = command.run(new RootCommandContext(appContext).createChild(null, "AdaptiveZip", null), args);
+			}
+			catch (Exception ex) {
+				ex.printStackTrace(err);
+				exit = 1;
+			}
+			finally {
+				stdout.redirect(null);
+				stderr.redirect(null);
+				jobSlots.release();
+			}
+			out.flush();
+			err.flush();
+			ServerProtocol.writeExit(output, exit);
+		}
+		catch (IOException|InterruptedException|RuntimeException ex) {
+			System.err.println("Failed to serve client: "+ex);
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.adaptivezip.server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Protocol between {@link AdaptiveZipClient} and {@link AdaptiveZipServer}.
+ *
+ * The client sends its working directory, the number of arguments and the arguments, all strings in
+ * {@link DataOutputStream#writeUTF(String)} format.  The server responds with sequence of frames, each starting with
+ * the frame type byte: {@link #FRAME_STDOUT} or {@link #FRAME_STDERR} followed by int length and the bytes of standard
+ * or error output and the final {@link #FRAME_EXIT} followed by int exit code.
+ */
+public class ServerProtocol
+{
+	/** Environment variable with the server socket path. */
+	public static final String SOCKET_ENV = "ADAPTIVE_ZIP_SOCKET";
+
+	/** Frame with exit code, terminating the response. */
+	public static final int FRAME_EXIT = 0;
+
+	/** Frame with chunk of standard output. */
+	public static final int FRAME_STDOUT = 1;
+
+	/** Frame with chunk of error output. */
+	public static final int FRAME_STDERR = 2;
+
+	public static void writeRequest(DataOutputStream output, String workingDirectory, List<String> args) throws IOException
+	{
+		output.writeUTF(workingDirectory);
+		output.writeInt(args.size());
+		for (String arg: args) {
+			output.writeUTF(arg);
+		}
+		output.flush();
+	}
+
+	public static String readWorkingDirectory(DataInputStream input) throws IOException
+	{
+		return input.readUTF();
+	}
+
+	public static List<String> readArgs(DataInputStream input) throws IOException
+	{
+		int count = input.readInt();
+		if (count < 0) {
+			throw new IOException("Invalid number of arguments: "+count);
+		}
+		List<String> args = new ArrayList<>(count);
+		for (int i = 0; i < count; ++i) {
+			args.add(input.readUTF());
+		}
+		return args;
+	}
+
+	public static void writeExit(DataOutputStream output, int exit) throws IOException
+	{
+		synchronized (output) {
+			output.writeByte(FRAME_EXIT);
+			output.writeInt(exit);
+			output.flush();
+		}
+	}
+
+	/**
+	 * {@link OutputStream} wrapping the written data into frames of specified type.
+	 */
+	public static class FrameOutputStream extends OutputStream
+	{
+		private final DataOutputStream output;
+
+		private final int type;
+
+		public FrameOutputStream(DataOutputStream output, int type)
+		{
+			this.output = output;
+			this.type = type;
+		}
+
+		@Override
+		public void write(int b) throws IOException
+		{
+			write(new byte[]{ (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int o, int l) throws IOException
+		{
+			synchronized (output) {
+				output.writeByte(type);
+				output.writeInt(l);
+				output.write(b, o, l);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException
+		{
+			synchronized (output) {
+				output.flush();
+			}
+		}
+	}
+}
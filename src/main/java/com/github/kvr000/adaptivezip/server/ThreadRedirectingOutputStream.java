@@ -0,0 +1,78 @@
+/*
+ * Copyright 2016 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.adaptivezip.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+
+/**
+ * {@link OutputStream} writing to the stream redirected for the current thread, or to the default stream.
+ *
+ * Used to send the output of the jobs, printed to {@link System#out} and {@link System#err}, to their clients.
+ */
+public class ThreadRedirectingOutputStream extends OutputStream
+{
+	private final OutputStream defaultOutput;
+
+	private final ThreadLocal<OutputStream> redirected = new ThreadLocal<>();
+
+	public ThreadRedirectingOutputStream(OutputStream defaultOutput)
+	{
+		this.defaultOutput = defaultOutput;
+	}
+
+	/**
+	 * Redirects the output of the current thread.
+	 *
+	 * @param output
+	 * 	stream to write to, null to restore the default one
+	 */
+	public void redirect(OutputStream output)
+	{
+		if (output == null) {
+			redirected.remove();
+		}
+		else {
+			redirected.set(output);
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		current().write(b);
+	}
+
+	@Override
+	public void write(byte[] b, int o, int l) throws IOException
+	{
+		current().write(b, o, l);
+	}
+
+	@Override
+	public void flush() throws IOException
+	{
+		current().flush();
+	}
+
+	private OutputStream current()
+	{
+		OutputStream output = redirected.get();
+		return output != null ? output : defaultOutput;
+	}
+}
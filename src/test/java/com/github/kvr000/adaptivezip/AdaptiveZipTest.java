@@ -0,0 +1,167 @@
+/*
+ * Copyright 2016 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.adaptivezip;
+
+import com.google.inject.Guice;
+import net.dryuf.cmdline.app.AppContext;
+import net.dryuf.cmdline.app.BeanFactory;
+import net.dryuf.cmdline.app.CommonAppContext;
+import net.dryuf.cmdline.command.RootCommandContext;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+
+public class AdaptiveZipTest
+{
+	private Path directory;
+
+	@BeforeMethod
+	public void setUp() throws IOException
+	{
+		directory = Files.createTempDirectory("AdaptiveZipTest");
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException
+	{
+		FileUtils.deleteDirectory(directory.toFile());
+	}
+
+	@Test(timeOut = 60_000L)
+	public void execute_inodeReadOrder_sameArchive() throws Exception
+	{
+		createTree();
+
+		assertEquals(runZip(new AdaptiveZip.Environment(), "-f", "archive.zip", "--store-pattern", "**/*.gz", "src"), 0);
+		assertEquals(runZip(new AdaptiveZip.Environment(), "-f", "inode.zip", "--read-order", "inode", "--read-ahead", "2", "--store-pattern", "**/*.gz", "src"), 0);
+
+		List<String> archive = readEntries(directory.resolve("archive.zip"));
+		assertEquals(readEntries(directory.resolve("inode.zip")), archive);
+		assertEquals(
+			archive.stream().map(entry -> entry.substring(0, entry.lastIndexOf(':'))).sorted().collect(Collectors.toList()),
+			Arrays.asList(
+				"src/big-random.bin:"+ZipEntry.STORED,
+				"src/big-text.txt:"+ZipEntry.DEFLATED,
+				"src/small.gz:"+ZipEntry.STORED,
+				"src/small.txt:"+ZipEntry.DEFLATED,
+				"src/sub/small.txt:"+ZipEntry.DEFLATED
+			)
+		);
+	}
+
+	@Test(timeOut = 60_000L)
+	public void execute_absoluteFile_rejected() throws Exception
+	{
+		createTree();
+
+		AdaptiveZip.Environment environment = new AdaptiveZip.Environment();
+		environment.setDetached(true);
+		expectThrows(IllegalArgumentException.class, () ->
+			runZip(environment, "-f", "archive.zip", directory.resolve("src/small.txt").toString()));
+	}
+
+	@Test(timeOut = 60_000L)
+	public void execute_outputClosed_aborted() throws Exception
+	{
+		createTree();
+
+		AdaptiveZip.Environment environment = new AdaptiveZip.Environment();
+		environment.setDetached(true);
+		environment.setErr(new PrintStream(new OutputStream()
+		{
+			@Override
+			public void write(int b) throws IOException
+			{
+				throw new IOException("Client disconnected");
+			}
+		}, true));
+		IOException ex = expectThrows(IOException.class, () -> runZip(environment, "-f", "archive.zip", "src"));
+		assertTrue(ExceptionUtils.getThrowableList(ex).stream().anyMatch(cause -> String.valueOf(cause.getMessage()).startsWith("Output closed")), ex.toString());
+	}
+
+	private void createTree() throws IOException
+	{
+		Files.createDirectories(directory.resolve("src/sub"));
+		Files.writeString(directory.resolve("src/small.txt"), String.join("", Collections.nCopies(100, "small text file\n")));
+		Files.writeString(directory.resolve("src/sub/small.txt"), String.join("", Collections.nCopies(100, "sub text file\n")));
+		// stored by pattern, replayed from prefetched content
+		Files.writeString(directory.resolve("src/small.gz"), String.join("", Collections.nCopies(100, "stored file\n")));
+		// bigger than prefetch limit, deflated
+		Files.writeString(directory.resolve("src/big-text.txt"), String.join("", Collections.nCopies(200_000, "big text file\n")));
+		// bigger than prefetch limit, stored due to compression ratio
+		byte[] random = new byte[3 << 20];
+		new Random(0).nextBytes(random);
+		Files.write(directory.resolve("src/big-random.bin"), random);
+	}
+
+	/**
+	 * Reads entries of archive, verifying their content against the source files.
+	 *
+	 * @return
+	 * 	list of entry names, compression methods and CRCs, in archive order
+	 */
+	private List<String> readEntries(Path archive) throws IOException
+	{
+		List<String> entries = new ArrayList<>();
+		try (ZipFile zip = new ZipFile(archive.toFile())) {
+			for (ZipEntry entry: Collections.list(zip.entries())) {
+				byte[] content;
+				try (InputStream stream = zip.getInputStream(entry)) {
+					content = stream.readAllBytes();
+				}
+				assertEquals(content, Files.readAllBytes(directory.resolve(entry.getName())), entry.getName());
+				CRC32 crc = new CRC32();
+				crc.update(content);
+				assertEquals(entry.getCrc(), crc.getValue(), entry.getName());
+				entries.add(entry.getName()+":"+entry.getMethod()+":"+entry.getCrc());
+			}
+		}
+		return entries;
+	}
+
+	private int runZip(AdaptiveZip.Environment environment, String... args) throws Exception
+	{
+		AppContext appContext = new CommonAppContext(Guice.createInjector(new AdaptiveZip.GuiceModule()).getInstance(BeanFactory.class));
+		AdaptiveZip command = appContext.getBeanFactory().getBean(AdaptiveZip.class);
+		environment.setWorkingDirectory(directory);
+		command.setEnvironment(environment);
+		return command.run(new RootCommandContext(appContext).createChild(null, "AdaptiveZip", null), Arrays.asList(args));
+	}
+}
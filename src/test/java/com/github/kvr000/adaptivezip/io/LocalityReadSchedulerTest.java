@@ -0,0 +1,168 @@
+/*
+ * Copyright 2016 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.adaptivezip.io;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+
+public class LocalityReadSchedulerTest
+{
+	private Path directory;
+
+	@BeforeMethod
+	public void setUp() throws IOException
+	{
+		directory = Files.createTempDirectory("LocalityReadSchedulerTest");
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException
+	{
+		FileUtils.deleteDirectory(directory.toFile());
+	}
+
+	@Test(timeOut = 10_000L)
+	public void take_prefetched_boundedByReadAhead() throws Exception
+	{
+		List<Path> files = createFiles(5, 10);
+		try (LocalityReadScheduler scheduler = new LocalityReadScheduler(files, 2, 1024)) {
+			waitRetained(scheduler, files, 2);
+			// no slot left, so no other file can be read
+			assertEquals(scheduler.availableSlots(), 0);
+			assertEquals(countRetained(scheduler, files), 2);
+
+			for (int i = 0; i < files.size(); ++i) {
+				try (InputStream stream = scheduler.take(i)) {
+					assertEquals(stream.readAllBytes(), Files.readAllBytes(files.get(i)));
+				}
+				assertFalse(scheduler.isRetained(i));
+				assertTrue(countRetained(scheduler, files) <= 2);
+			}
+			assertEquals(countRetained(scheduler, files), 0);
+		}
+	}
+
+	@Test(timeOut = 10_000L)
+	public void take_twice_fails() throws Exception
+	{
+		List<Path> files = createFiles(1, 10);
+		try (LocalityReadScheduler scheduler = new LocalityReadScheduler(files, 1, 1024)) {
+			scheduler.take(0).close();
+			expectThrows(IllegalStateException.class, () -> scheduler.take(0));
+		}
+	}
+
+	@Test(timeOut = 10_000L)
+	public void take_big_holdsSlotUntilClosed() throws Exception
+	{
+		List<Path> files = createFiles(2, 10);
+		try (LocalityReadScheduler scheduler = new LocalityReadScheduler(files, 1, 4)) {
+			try (InputStream stream = scheduler.take(0)) {
+				assertEquals(stream.readAllBytes(), Files.readAllBytes(files.get(0)));
+				// the only slot is held by open stream
+				assertEquals(scheduler.availableSlots(), 0);
+				assertFalse(scheduler.isRetained(1));
+			}
+			waitRetained(scheduler, files, 1);
+			try (InputStream stream = scheduler.take(1)) {
+				assertEquals(stream.readAllBytes(), Files.readAllBytes(files.get(1)));
+			}
+		}
+	}
+
+	@Test(timeOut = 10_000L)
+	public void take_missing_throws() throws Exception
+	{
+		List<Path> files = new ArrayList<>(createFiles(2, 10));
+		files.add(1, directory.resolve("missing"));
+		try (LocalityReadScheduler scheduler = new LocalityReadScheduler(files, 3, 1024)) {
+			try (InputStream stream = scheduler.take(0)) {
+				assertEquals(stream.readAllBytes(), Files.readAllBytes(files.get(0)));
+			}
+			expectThrows(IOException.class, () -> scheduler.take(1));
+			assertFalse(scheduler.isRetained(1));
+			try (InputStream stream = scheduler.take(2)) {
+				assertEquals(stream.readAllBytes(), Files.readAllBytes(files.get(2)));
+			}
+			assertEquals(scheduler.availableSlots(), 3);
+		}
+	}
+
+	@Test(timeOut = 10_000L)
+	public void take_interrupted_keepsInterruptFlag() throws Exception
+	{
+		List<Path> files = createFiles(2, 10);
+		try (LocalityReadScheduler scheduler = new LocalityReadScheduler(files, 1, 4)) {
+			InputStream stream = scheduler.take(0);
+			try {
+				Thread.currentThread().interrupt();
+				expectThrows(InterruptedIOException.class, () -> scheduler.take(1));
+				assertTrue(Thread.interrupted());
+			}
+			finally {
+				stream.close();
+			}
+		}
+	}
+
+	private List<Path> createFiles(int count, int size) throws IOException
+	{
+		List<Path> files = new ArrayList<>();
+		for (int i = 0; i < count; ++i) {
+			byte[] content = new byte[size];
+			for (int j = 0; j < size; ++j) {
+				content[j] = (byte) (i*size+j);
+			}
+			files.add(Files.write(directory.resolve("file-"+i), content));
+		}
+		return files;
+	}
+
+	private static int countRetained(LocalityReadScheduler scheduler, List<Path> files)
+	{
+		int count = 0;
+		for (int i = 0; i < files.size(); ++i) {
+			if (scheduler.isRetained(i)) {
+				++count;
+			}
+		}
+		return count;
+	}
+
+	private static void waitRetained(LocalityReadScheduler scheduler, List<Path> files, int expected) throws InterruptedException
+	{
+		while (countRetained(scheduler, files) < expected) {
+			Thread.sleep(10);
+		}
+	}
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2016 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.adaptivezip.server;
+
+import com.github.kvr000.adaptivezip.AdaptiveZip;
+import com.google.inject.Guice;
+import net.dryuf.cmdline.app.AppContext;
+import net.dryuf.cmdline.app.BeanFactory;
+import net.dryuf.cmdline.app.CommonAppContext;
+import net.dryuf.cmdline.command.RootCommandContext;
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+
+public class AdaptiveZipServerTest
+{
+	private PrintStream originalOut;
+
+	private PrintStream originalErr;
+
+	private Path directory;
+
+	private Path socket;
+
+	@BeforeClass
+	public void setUp() throws Exception
+	{
+		originalOut = System.out;
+		originalErr = System.err;
+		directory = Files.createTempDirectory("AdaptiveZipServerTest");
+		socket = directory.resolve("server.sock");
+
+		AppContext appContext = new CommonAppContext(Guice.createInjector(new AdaptiveZip.GuiceModule()).getInstance(BeanFactory.class));
+		AdaptiveZipServer server = appContext.getBeanFactory().getBean(AdaptiveZipServer.class);
+		Thread thread = new Thread(() -> {
+			try {
+				server.run(
+					new RootCommandContext(appContext).createChild(null, "AdaptiveZipServer", null),
+					Arrays.asList("--socket", socket.toString(), "--jobs", "2")
+				);
+			}
+			catch (Exception ex) {
+				throw new RuntimeException(ex);
+			}
+		}, "AdaptiveZipServerTest-server");
+		thread.setDaemon(true);
+		thread.start();
+		while (!Files.exists(socket)) {
+			Thread.sleep(10);
+		}
+	}
+
+	@AfterClass
+	public void tearDown() throws IOException
+	{
+		System.setOut(originalOut);
+		System.setErr(originalErr);
+		FileUtils.deleteDirectory(directory.toFile());
+	}
+
+	@Test(timeOut = 60_000L)
+	public void execute_zip_archiveCreated() throws Exception
+	{
+		Path work = Files.createDirectories(directory.resolve("zip"));
+		Files.createDirectories(work.resolve("src"));
+		Files.writeString(work.resolve("src/a.txt"), String.join("", Collections.nCopies(100, "first file\n")));
+		Files.writeString(work.resolve("src/b.txt"), String.join("", Collections.nCopies(100, "second file\n")));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+		int exit = AdaptiveZipClient.execute(socket.toString(), work.toString(), Arrays.asList("-f", "archive.zip", "src"), out, err);
+
+		String errText = err.toString(StandardCharsets.UTF_8);
+		assertEquals(exit, 0, errText);
+		assertTrue(errText.contains("\tadding: src/a.txt ("), errText);
+		assertTrue(errText.contains("\tadding: src/b.txt ("), errText);
+		try (ZipFile zip = new ZipFile(work.resolve("archive.zip").toFile())) {
+			for (ZipEntry entry: Collections.list(zip.entries())) {
+				try (InputStream stream = zip.getInputStream(entry)) {
+					assertEquals(stream.readAllBytes(), Files.readAllBytes(work.resolve(entry.getName())), entry.getName());
+				}
+			}
+			assertEquals(zip.size(), 2);
+		}
+	}
+
+	@Test(timeOut = 60_000L)
+	public void execute_invalidOptions_usageReturned() throws Exception
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+		int exit = AdaptiveZipClient.execute(socket.toString(), directory.toString(), Arrays.asList("--read-order", "random", "src"), out, err);
+
+		assertNotEquals(exit, 0);
+		assertTrue(out.size()+err.size() > 0, "Expected usage message");
+	}
+
+	@Test(timeOut = 60_000L)
+	public void execute_absoluteFile_failed() throws Exception
+	{
+		Path file = Files.writeString(directory.resolve("absolute.txt"), "absolute");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+		int exit = AdaptiveZipClient.execute(socket.toString(), directory.toString(), Arrays.asList("-f", "absolute.zip", file.toString()), out, err);
+
+		assertNotEquals(exit, 0);
+		assertTrue(err.toString(StandardCharsets.UTF_8).contains("Absolute file"), err.toString(StandardCharsets.UTF_8));
+	}
+
+	@Test(timeOut = 10_000L)
+	public void bind_regularFile_refused() throws Exception
+	{
+		Path file = Files.writeString(directory.resolve("regular.zip"), "content");
+
+		expectThrows(IOException.class, () -> AdaptiveZipServer.bind(file));
+		assertEquals(Files.readString(file), "content");
+	}
+
+	@Test(timeOut = 10_000L)
+	public void bind_liveSocket_refused() throws Exception
+	{
+		expectThrows(IOException.class, () -> AdaptiveZipServer.bind(socket));
+		assertTrue(Files.exists(socket));
+	}
+
+	@Test(timeOut = 10_000L)
+	public void bind_staleSocket_replaced() throws Exception
+	{
+		Path stale = directory.resolve("stale.sock");
+		AdaptiveZipServer.bind(stale).close();
+		assertTrue(Files.exists(stale));
+
+		try (ServerSocketChannel server = AdaptiveZipServer.bind(stale)) {
+			assertTrue(server.isOpen());
+			assertEquals(Files.getPosixFilePermissions(stale), PosixFilePermissions.fromString("rw-------"));
+		}
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.adaptivezip.server;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.expectThrows;
+
+
+public class ServerProtocolTest
+{
+	@Test
+	public void request_roundTrip_equal() throws IOException
+	{
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		List<String> args = Arrays.asList("-f", "target/a.zip", "--store-pattern", "**/*.gz", "src/ž/");
+		ServerProtocol.writeRequest(new DataOutputStream(buffer), "/home/user", args);
+
+		DataInputStream input = new DataInputStream(new ByteArrayInputStream(buffer.toByteArray()));
+		assertEquals(ServerProtocol.readWorkingDirectory(input), "/home/user");
+		assertEquals(ServerProtocol.readArgs(input), args);
+		assertEquals(input.read(), -1);
+	}
+
+	@Test
+	public void request_negativeCount_fails() throws IOException
+	{
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(buffer);
+		output.writeUTF("/");
+		output.writeInt(-1);
+
+		DataInputStream input = new DataInputStream(new ByteArrayInputStream(buffer.toByteArray()));
+		ServerProtocol.readWorkingDirectory(input);
+		expectThrows(IOException.class, () -> ServerProtocol.readArgs(input));
+	}
+
+	@Test
+	public void frames_roundTrip_equal() throws IOException
+	{
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(buffer);
+		try (
+			PrintStream out = new PrintStream(new ServerProtocol.FrameOutputStream(output, ServerProtocol.FRAME_STDOUT), true, StandardCharsets.UTF_8);
+			PrintStream err = new PrintStream(new ServerProtocol.FrameOutputStream(output, ServerProtocol.FRAME_STDERR), true, StandardCharsets.UTF_8)
+		) {
+			out.print("usage");
+			err.print("adding");
+			ServerProtocol.writeExit(output, 3);
+		}
+
+		DataInputStream input = new DataInputStream(new ByteArrayInputStream(buffer.toByteArray()));
+		assertEquals(input.readUnsignedByte(), ServerProtocol.FRAME_STDOUT);
+		assertEquals(readFrameData(input), "usage");
+		assertEquals(input.readUnsignedByte(), ServerProtocol.FRAME_STDERR);
+		assertEquals(readFrameData(input), "adding");
+		assertEquals(input.readUnsignedByte(), ServerProtocol.FRAME_EXIT);
+		assertEquals(input.readInt(), 3);
+		assertEquals(input.read(), -1);
+	}
+
+	private static String readFrameData(DataInputStream input) throws IOException
+	{
+		byte[] data = new byte[input.readInt()];
+		input.readFully(data);
+		return new String(data, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2016 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.adaptivezip.server;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.testng.Assert.assertEquals;
+
+
+public class ThreadRedirectingOutputStreamTest
+{
+	@Test(timeOut = 10_000L)
+	public void write_redirected_perThread() throws Exception
+	{
+		ByteArrayOutputStream defaultOutput = new ByteArrayOutputStream();
+		ByteArrayOutputStream mainOutput = new ByteArrayOutputStream();
+		ByteArrayOutputStream otherOutput = new ByteArrayOutputStream();
+		ThreadRedirectingOutputStream stream = new ThreadRedirectingOutputStream(defaultOutput);
+
+		stream.redirect(mainOutput);
+		stream.write("main".getBytes(StandardCharsets.UTF_8));
+		Thread other = new Thread(() -> {
+			try {
+				stream.write("default".getBytes(StandardCharsets.UTF_8));
+				stream.redirect(otherOutput);
+				stream.write("other".getBytes(StandardCharsets.UTF_8));
+			}
+			catch (Exception ex) {
+				throw new RuntimeException(ex);
+			}
+		});
+		other.start();
+		other.join();
+		stream.redirect(null);
+		stream.write("restored".getBytes(StandardCharsets.UTF_8));
+
+		assertEquals(mainOutput.toString(StandardCharsets.UTF_8), "main");
+		assertEquals(otherOutput.toString(StandardCharsets.UTF_8), "other");
+		assertEquals(defaultOutput.toString(StandardCharsets.UTF_8), "defaultrestored");
+	}
+}